@@ -1,6 +1,11 @@
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.TreeSet;
 //Rafi
 // Interface for vehicles
 interface Vehicle {
@@ -20,18 +25,83 @@ class PaymentException extends Exception {
 }
 
 
+// Read-only view of a rating, so callers cannot change a score behind the ranking's back
+interface RatingView {
+    int getCount();
+    double getMean();
+    double getRecentScore();
+    double getRankingScore();
+}
+
+// Rating aggregate, updated on every new score instead of recomputed from history
+class Rating implements RatingView {
+    public static final int MIN_STARS = 1;
+    public static final int MAX_STARS = 5;
+    // Weight of the newest score in the decayed recent score
+    private static final double RECENT_WEIGHT = 0.3;
+    private static final double NEUTRAL_SCORE = 3.0;
+
+    private int count;
+    private double mean;
+    private double recentScore;
+
+    public void addScore(int stars) {
+        if (stars < MIN_STARS || stars > MAX_STARS) {
+            throw new IllegalArgumentException("Rating must be between " + MIN_STARS + " and " + MAX_STARS);
+        }
+        count++;
+        mean += (stars - mean) / count;
+        if (count == 1) {
+            recentScore = stars;
+        } else {
+            recentScore = RECENT_WEIGHT * stars + (1 - RECENT_WEIGHT) * recentScore;
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public double getMean() {
+        return mean;
+    }
+
+    @Override
+    public double getRecentScore() {
+        return recentScore;
+    }
+
+    // Unrated users rank in the middle so new drivers still get dispatched
+    @Override
+    public double getRankingScore() {
+        return count == 0 ? NEUTRAL_SCORE : recentScore;
+    }
+
+    @Override
+    public String toString() {
+        if (count == 0) {
+            return "Not rated yet";
+        }
+        return String.format("%.2f (%d ratings, recent %.2f)", mean, count, recentScore);
+    }
+}
+
 // Abstract user class
 abstract class User {
     protected String userId;
     protected String name;
     protected String phone;
     protected String password;
+    private Rating rating;
 
     public User(String userId, String name, String phone, String password) {
         this.userId = userId;
         this.name = name;
         this.phone = phone;
         this.password = password;
+        this.rating = new Rating();
     }
 
     public abstract void displayProfile();
@@ -43,6 +113,14 @@ abstract class User {
     public boolean authenticate(String password) {
         return this.password.equals(password);
     }
+
+    public RatingView getRating() {
+        return rating;
+    }
+
+    public void receiveRating(int stars) {
+        rating.addScore(stars);
+    }
 }
 
 // Rider class
@@ -64,6 +142,7 @@ class Rider extends User {
         System.out.println("Name: " + name);
         System.out.println("Phone: " + phone);
         System.out.println("Total Rides: " + rideHistory.size());
+        System.out.println("Rating: " + getRating());
     }
 
     public void requestRide(Driver driver, String pickup, String destination, double distance) {
@@ -87,12 +166,15 @@ class Rider extends User {
 // Driver class
 class Driver extends User {
     private Vehicle vehicle;
+    private String zone;
     private boolean available;
     private List<Ride> completedRides;
+    private DriverRanking ranking;
 
-    public Driver(String userId, String name, String phone, String password, Vehicle vehicle) {
+    public Driver(String userId, String name, String phone, String password, Vehicle vehicle, String zone) {
         super(userId, name, phone, password);
         this.vehicle = vehicle;
+        this.zone = zone;
         this.available = true;
         this.completedRides = new ArrayList<>();
     }
@@ -104,7 +186,9 @@ class Driver extends User {
         System.out.println("Name: " + name);
         System.out.println("Phone: " + phone);
         System.out.println("Vehicle: " + vehicle.getVehicleInfo());
+        System.out.println("Zone: " + zone);
         System.out.println("Completed Rides: " + completedRides.size());
+        System.out.println("Rating: " + getRating());
         System.out.println("Status: " + (available ? "Available" : "On Ride"));
     }
 
@@ -113,20 +197,154 @@ class Driver extends User {
             System.out.println(name + " accepted ride from " + ride.getRider().name);
             ride.setDriver(this);
             available = false;
+            if (ranking != null) {
+                ranking.markBusy(this);
+            }
             vehicle.startRide();
         }
     }
 
+    // The driver is now at the ride's destination, so they are ranked in that zone
     public void completeRide(Ride ride) {
         vehicle.stopRide();
         completedRides.add(ride);
-        available = true;
+        if (ranking != null) {
+            ranking.reposition(this, () -> {
+                zone = ride.getDestination();
+                available = true;
+            });
+        } else {
+            zone = ride.getDestination();
+            available = true;
+        }
         System.out.println(name + " completed the ride");
     }
 
+    // Payment failed, so the ride never happened and the driver stays where they were
+    public void cancelRide(Ride ride) {
+        vehicle.stopRide();
+        if (ranking != null) {
+            ranking.reposition(this, () -> available = true);
+        } else {
+            available = true;
+        }
+        System.out.println(name + "'s ride was cancelled");
+    }
+
+    // Ratings go through the ranking, because they change the driver's place in its sorted sets
+    @Override
+    public void receiveRating(int stars) {
+        if (ranking != null) {
+            ranking.reposition(this, () -> super.receiveRating(stars));
+        } else {
+            super.receiveRating(stars);
+        }
+    }
+
     public boolean isAvailable() {
         return available;
     }
+
+    public String getZone() {
+        return zone;
+    }
+
+    public List<Ride> getUnratedRides() {
+        List<Ride> unrated = new ArrayList<>();
+        for (Ride ride : completedRides) {
+            if (!ride.isRiderRated()) {
+                unrated.add(ride);
+            }
+        }
+        return unrated;
+    }
+
+    public void setRanking(DriverRanking ranking) {
+        this.ranking = ranking;
+    }
+}
+
+// Drivers ranked per zone, best rated first. Busy drivers leave the available sets,
+// so dispatch only has to look at the first entry.
+class DriverRanking {
+    // Registration order breaks ties, so two drivers never compare as equal
+    private Map<Driver, Integer> sequence = new IdentityHashMap<>();
+    private Comparator<Driver> byRating = Comparator
+            .comparingDouble((Driver d) -> d.getRating().getRankingScore()).reversed()
+            .thenComparing(Comparator.comparingDouble((Driver d) -> d.getRating().getMean()).reversed())
+            .thenComparing(d -> sequence.get(d));
+
+    private Map<String, TreeSet<Driver>> zones = new HashMap<>();
+    private Map<String, TreeSet<Driver>> availableByZone = new HashMap<>();
+    private TreeSet<Driver> availableAll = new TreeSet<>(byRating);
+
+    private static String key(String zone) {
+        return zone.trim().toLowerCase();
+    }
+
+    private TreeSet<Driver> zoneSet(Map<String, TreeSet<Driver>> sets, Driver driver) {
+        return sets.computeIfAbsent(key(driver.getZone()), z -> new TreeSet<>(byRating));
+    }
+
+    public void addDriver(Driver driver) {
+        if (sequence.containsKey(driver)) {
+            throw new IllegalArgumentException("Driver already ranked: " + driver.userId);
+        }
+        sequence.put(driver, sequence.size());
+        zoneSet(zones, driver).add(driver);
+        if (driver.isAvailable()) {
+            zoneSet(availableByZone, driver).add(driver);
+            availableAll.add(driver);
+        }
+        driver.setRanking(this);
+    }
+
+    public void markBusy(Driver driver) {
+        zoneSet(availableByZone, driver).remove(driver);
+        availableAll.remove(driver);
+    }
+
+    // Anything that changes a driver's rating, zone or availability must run inside reposition:
+    // the driver leaves the sorted sets first, then re-enters at its new rank, zone and availability
+    public void reposition(Driver driver, Runnable change) {
+        if (!zoneSet(zones, driver).remove(driver)) {
+            throw new IllegalArgumentException("Driver not ranked: " + driver.userId);
+        }
+        zoneSet(availableByZone, driver).remove(driver);
+        availableAll.remove(driver);
+        try {
+            change.run();
+        } finally {
+            zoneSet(zones, driver).add(driver);
+            if (driver.isAvailable()) {
+                zoneSet(availableByZone, driver).add(driver);
+                availableAll.add(driver);
+            }
+        }
+    }
+
+    // Pickup zone stands in for pickup distance: the best rated available driver nearby
+    public Driver findBestAvailable(String zone) {
+        TreeSet<Driver> available = availableByZone.get(key(zone));
+        return available == null || available.isEmpty() ? null : available.first();
+    }
+
+    // Best rated available driver in any zone
+    public Driver findBestAvailable() {
+        return availableAll.isEmpty() ? null : availableAll.first();
+    }
+
+    public void displayZone(String zone) {
+        TreeSet<Driver> ranked = zones.get(key(zone));
+        if (ranked == null || ranked.isEmpty()) {
+            System.out.println("No drivers in zone " + zone);
+            return;
+        }
+        int rank = 1;
+        for (Driver driver : ranked) {
+            System.out.println(rank++ + ". " + driver.name + " (" + driver.userId + ") - " + driver.getRating());
+        }
+    }
 }
 //Rafi
 
@@ -142,6 +360,8 @@ class Ride {
     private String destination;
     private double distance;
     private boolean completed;
+    private boolean driverRated;
+    private boolean riderRated;
 
     public Ride(Rider rider, Driver driver, String pickup, String destination, double distance) {
         this.rider = rider;
@@ -158,7 +378,12 @@ class Ride {
 
     public void complete(PaymentMethod paymentMethod) throws PaymentException {
         double fare = calculateFare();
-        paymentMethod.processPayment(fare);
+        try {
+            paymentMethod.processPayment(fare);
+        } catch (PaymentException e) {
+            driver.cancelRide(this);
+            throw e;
+        }
         driver.completeRide(this);
         completed = true;
         if (paymentMethod instanceof HandCashPayment) {
@@ -168,6 +393,38 @@ class Ride {
         }
     }
 
+    // Rider rates the driver once, after the ride is completed
+    public boolean rateDriver(int stars) {
+        if (!completed || driverRated) {
+            return false;
+        }
+        driver.receiveRating(stars);
+        driverRated = true;
+        return true;
+    }
+
+    // Driver rates the rider once, after the ride is completed
+    public boolean rateRider(int stars) {
+        if (!completed || riderRated) {
+            return false;
+        }
+        rider.receiveRating(stars);
+        riderRated = true;
+        return true;
+    }
+
+    public boolean isRiderRated() {
+        return riderRated;
+    }
+
+    public String getPickupLocation() {
+        return pickupLocation;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
     public Rider getRider() {
         return rider;
     }
@@ -311,9 +568,12 @@ class Admin extends User {
 
 // Ride Sharing System with Menu
 public class RideSharingSystem {
+    private static final int SKIP_RATING = 0;
+
     private static List<User> users = new ArrayList<>();
     private static List<Driver> drivers = new ArrayList<>();
     private static List<Rider> riders = new ArrayList<>();
+    private static DriverRanking driverRanking = new DriverRanking();
     private static Admin admin;
     private static Scanner scanner = new Scanner(System.in);
 
@@ -332,13 +592,16 @@ public class RideSharingSystem {
         Vehicle suv = new Car("XYZ789", "Honda CR-V");
         Vehicle scooter = new Bike("BIKE001", "TVS");
 
-        Driver driver1 = new Driver("D100", "Abdur Rahim", "01735537376", "driver1", sedan);
-        Driver driver2 = new Driver("D101", "Abdul Karim", "0175550102", "driver2", suv);
-        Driver driver3 = new Driver("D102", "Suleman", "0175550103", "driver3", scooter);
+        Driver driver1 = new Driver("D100", "Abdur Rahim", "01735537376", "driver1", sedan, "Mirpur");
+        Driver driver2 = new Driver("D101", "Abdul Karim", "0175550102", "driver2", suv, "Asulia");
+        Driver driver3 = new Driver("D102", "Suleman", "0175550103", "driver3", scooter, "Mirpur");
 
         drivers.add(driver1);
         drivers.add(driver2);
         drivers.add(driver3);
+        driverRanking.addDriver(driver1);
+        driverRanking.addDriver(driver2);
+        driverRanking.addDriver(driver3);
         users.add(driver1);
         users.add(driver2);
         users.add(driver3);
@@ -415,6 +678,7 @@ public class RideSharingSystem {
             System.out.println("1) View All Users");
             System.out.println("2) View All Drivers");
             System.out.println("3) View All Passengers");
+            System.out.println("4) View Driver Ranking by Zone");
             System.out.println("0) Back to Main Menu");
             System.out.print("Choose option: ");
 
@@ -439,6 +703,12 @@ public class RideSharingSystem {
                         System.out.println("-------------------");
                     }
                     break;
+                case 4:
+                    System.out.print("Enter zone: ");
+                    String zone = scanner.nextLine();
+                    System.out.println("\nDriver Ranking - " + zone);
+                    driverRanking.displayZone(zone);
+                    break;
                 case 0:
                     return;
                 default:
@@ -467,6 +737,7 @@ public class RideSharingSystem {
             System.out.println("\nDriver Panel - " + driver.name);
             System.out.println("1) View Profile");
             System.out.println("2) View Available Rides");
+            System.out.println("3) Rate Passengers");
             System.out.println("0) Back to Main Menu");
             System.out.print("Choose option: ");
 
@@ -487,6 +758,9 @@ public class RideSharingSystem {
                         System.out.println("No available rides at the moment.");
                     }
                     break;
+                case 3:
+                    ratePassengers(driver);
+                    break;
                 case 0:
                     return;
                 default:
@@ -535,15 +809,27 @@ public class RideSharingSystem {
                         double distance = scanner.nextDouble();
                         scanner.nextLine(); // consume newline
 
-                        // In a real system, you would match with an available driver
-                        Driver availableDriver = drivers.get(0);
+                        // Prefer the best rated available driver in the pickup zone, then anywhere
+                        Driver availableDriver = driverRanking.findBestAvailable(pickup);
+                        if (availableDriver == null) {
+                            availableDriver = driverRanking.findBestAvailable();
+                        }
+                        if (availableDriver == null) {
+                            System.out.println("No drivers available at the moment.");
+                            break;
+                        }
                         rider.requestRide(availableDriver, pickup, destination, distance);
                         availableDriver.acceptRide(rider.getCurrentRide());
 
                         System.out.println("Press any key to complete ride...");
                         scanner.nextLine();
+                        Ride ride = rider.getCurrentRide();
                         try {
                             rider.completeRide();
+                            int stars = readStars("Rate your driver");
+                            if (stars != SKIP_RATING && ride.rateDriver(stars)) {
+                                System.out.println("Thanks for rating " + availableDriver.name + "!");
+                            }
                         } catch (PaymentException e) {
                             System.out.println("Payment failed: " + e.getMessage());
                         }
@@ -559,6 +845,45 @@ public class RideSharingSystem {
         }
     }
 
+    private static void ratePassengers(Driver driver) {
+        List<Ride> unrated = driver.getUnratedRides();
+        if (unrated.isEmpty()) {
+            System.out.println("No passengers left to rate.");
+            return;
+        }
+        for (Ride ride : unrated) {
+            System.out.println("\nRide with " + ride.getRider().name + " from "
+                    + ride.getPickupLocation() + " to " + ride.getDestination());
+            int stars = readStars("Rate this passenger");
+            if (stars != SKIP_RATING && ride.rateRider(stars)) {
+                System.out.println("Thanks for rating " + ride.getRider().name + "!");
+            }
+        }
+    }
+
+    // Returns SKIP_RATING when the user chooses not to rate
+    private static int readStars(String prompt) {
+        while (true) {
+            System.out.print(prompt + " (" + Rating.MIN_STARS + "-" + Rating.MAX_STARS + ", "
+                    + SKIP_RATING + " to skip): ");
+            int stars = scanner.nextInt();
+            scanner.nextLine(); // consume newline
+            if (stars == SKIP_RATING || (stars >= Rating.MIN_STARS && stars <= Rating.MAX_STARS)) {
+                return stars;
+            }
+            System.out.println("Invalid rating. Please try again.");
+        }
+    }
+
+    private static boolean isUserIdTaken(String id) {
+        for (User user : users) {
+            if (user.userId.equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static void registerNewUser() {
         System.out.println("\nRegister New User");
         System.out.println("1) Register as Driver");
@@ -587,6 +912,10 @@ public class RideSharingSystem {
     private static void registerDriver() {
         System.out.print("\nEnter Driver ID: ");
         String id = scanner.nextLine();
+        if (isUserIdTaken(id)) {
+            System.out.println("User ID " + id + " is already taken!");
+            return;
+        }
         System.out.print("Enter Name: ");
         String name = scanner.nextLine();
         System.out.print("Enter Phone: ");
@@ -600,6 +929,8 @@ public class RideSharingSystem {
         String license = scanner.nextLine();
         System.out.print("Enter Model: ");
         String model = scanner.nextLine();
+        System.out.print("Enter Zone: ");
+        String zone = scanner.nextLine();
 
         Vehicle vehicle;
         if (vehicleType.equalsIgnoreCase("car")) {
@@ -608,8 +939,9 @@ public class RideSharingSystem {
             vehicle = new Bike(license, model);
         }
 
-        Driver newDriver = new Driver(id, name, phone, password, vehicle);
+        Driver newDriver = new Driver(id, name, phone, password, vehicle, zone);
         drivers.add(newDriver);
+        driverRanking.addDriver(newDriver);
         users.add(newDriver);
         System.out.println("Driver registration successful!");
     }
@@ -617,6 +949,10 @@ public class RideSharingSystem {
     private static void registerRider() {
         System.out.print("\nEnter Passenger ID: ");
         String id = scanner.nextLine();
+        if (isUserIdTaken(id)) {
+            System.out.println("User ID " + id + " is already taken!");
+            return;
+        }
         System.out.print("Enter Name: ");
         String name = scanner.nextLine();
         System.out.print("Enter Phone: ");